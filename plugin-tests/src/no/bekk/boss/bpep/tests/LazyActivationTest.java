@@ -0,0 +1,107 @@
+package no.bekk.boss.bpep.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.eclipse.core.commands.Command;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.ui.PlatformUI;
+import org.eclipse.ui.commands.ICommandService;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks that the fbgep bundle is not activated by starting the workbench, nor
+ * by showing or enabling its commands. Run as a JUnit Plug-in Test with the
+ * workbench; this bundle deliberately does not require fbgep, and only reads
+ * its headers and entries, so the tests themselves load none of its classes.
+ */
+public class LazyActivationTest {
+
+	private static final String BUNDLE = "fbgep";
+
+	@Test
+	public void bundleIsNotActiveAfterWorkbenchStartup() {
+		assertTrue(PlatformUI.isWorkbenchRunning());
+		assertNotActive();
+	}
+
+	@Test
+	public void commandsAreEnabledWithoutActivatingTheBundle() {
+		ICommandService commandService = (ICommandService) PlatformUI.getWorkbench().getService(ICommandService.class);
+		for (String commandId : new String[] { "bpep.invoke", "bpep.regenerate" }) {
+			Command command = commandService.getCommand(commandId);
+			assertTrue(commandId, command.isDefined());
+			// evaluates the enabledWhen expression of the handler proxy
+			command.isEnabled();
+		}
+		assertNotActive();
+	}
+
+	@Test
+	public void bundleIsActivatedLazily() {
+		Bundle bundle = getBundle();
+		assertEquals("lazy", bundle.getHeaders().get("Bundle-ActivationPolicy"));
+		assertNull(bundle.getHeaders().get("Eclipse-LazyStart"));
+	}
+
+	@Test
+	public void noExtensionLoadsClassesAtStartup() throws Exception {
+		NodeList extensions = readPluginXml().getElementsByTagName("extension");
+		for (int i = 0; i < extensions.getLength(); i++) {
+			String point = ((Element) extensions.item(i)).getAttribute("point");
+			assertFalse(point, point.equals("org.eclipse.ui.startup"));
+			assertFalse(point, point.equals("org.eclipse.ui.popupMenus"));
+			assertFalse(point, point.equals("org.eclipse.ui.actionSets"));
+		}
+	}
+
+	@Test
+	public void handlersDeclareEnablement() throws Exception {
+		Document pluginXml = readPluginXml();
+		NodeList handlers = pluginXml.getElementsByTagName("handler");
+		assertTrue(handlers.getLength() > 0);
+		for (int i = 0; i < handlers.getLength(); i++) {
+			Element handler = (Element) handlers.item(i);
+			assertEquals(handler.getAttribute("class"), 1, handler.getElementsByTagName("enabledWhen").getLength());
+		}
+		for (String tagName : new String[] { "instanceof", "test" }) {
+			NodeList elements = pluginXml.getElementsByTagName(tagName);
+			for (int i = 0; i < elements.getLength(); i++) {
+				Element element = (Element) elements.item(i);
+				assertFalse(tagName, "true".equals(element.getAttribute("forcePluginActivation")));
+			}
+		}
+	}
+
+	private static Bundle getBundle() {
+		Bundle bundle = Platform.getBundle(BUNDLE);
+		assertNotNull(BUNDLE + " is not installed", bundle);
+		return bundle;
+	}
+
+	private static void assertNotActive() {
+		int state = getBundle().getState();
+		assertTrue("expected " + BUNDLE + " to be resolved or waiting for lazy activation, was " + state,
+				state == Bundle.RESOLVED || state == Bundle.STARTING);
+	}
+
+	private static Document readPluginXml() throws Exception {
+		InputStream in = getBundle().getEntry("plugin.xml").openStream();
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+		} finally {
+			in.close();
+		}
+	}
+}
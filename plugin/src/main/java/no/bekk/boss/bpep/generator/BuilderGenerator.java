@@ -5,27 +5,47 @@ import static no.bekk.boss.bpep.resolver.Resolver.getType;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import no.bekk.boss.bpep.Activator;
+import no.bekk.boss.bpep.resolver.Resolver;
+import no.bekk.boss.bpep.resolver.SupertypeHierarchyCache;
+
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.IBuffer;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IField;
 import org.eclipse.jdt.core.IJavaProject;
 import org.eclipse.jdt.core.IMethod;
+import org.eclipse.jdt.core.IPackageFragment;
+import org.eclipse.jdt.core.IPackageFragmentRoot;
 import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.NamingConventions;
+import org.eclipse.jdt.core.Signature;
 import org.eclipse.jdt.core.ToolFactory;
 import org.eclipse.jdt.core.formatter.CodeFormatter;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.Document;
 import org.eclipse.text.edits.MalformedTreeException;
 import org.eclipse.text.edits.TextEdit;
+import org.eclipse.ui.statushandlers.StatusManager;
 
 public class BuilderGenerator implements Generator {
 
@@ -35,62 +55,620 @@ public class BuilderGenerator implements Generator {
 	private final boolean useWithPrefix;
 	private final boolean generateAddedRemovedMethodsForCollections;
 	private final boolean generateVarargMethodsForCollections;
+	private final boolean useCopyOnWriteCollections;
+	private final boolean createCompanionBuilderFile;
+	private final boolean createBenchmark;
+	private final String benchmarkSourceFolder;
+	private final String benchmarkCollectionSizes;
+	private final boolean internInstances;
+	private final int internCacheSize;
+	private final Set<String> requiredFields;
+
+	private static final Pattern PRIVATE_MODIFIER = Pattern.compile("\\bprivate\\s+");
+	private static final Pattern COLLECTION_TYPE = Pattern.compile("\\w*(Collection|List|Set)<(\\w+)>");
 
 	public void generate(ICompilationUnit cu, List<IField> fields) {
 
 		try {
+			IType clazz = cu.getTypes()[0];
+			// checked before anything is changed, so an error does not leave a half generated builder
+			IMethod constructor = findBeanConstructor(clazz, fields);
+			IPackageFragmentRoot benchmarkRoot = null;
+			if (createBenchmark) {
+				benchmarkRoot = getBenchmarkRoot(cu);
+			}
+
 			removeOldClassConstructor(cu);
 			removeOldBuilderClass(cu);
 			
-			IType clazz = cu.getTypes()[0];
-			String clazzName = clazz.getElementName();
-            String builderClassName = /*clazzName +*/ "Builder";
+			if (createCompanionBuilderFile) {
+				generateCompanionBuilder(cu, clazz, fields, constructor);
+			} else {
+				addInheritedFieldImports(cu, clazz, fields);
+				generateNestedBuilder(cu, clazz, fields, constructor);
+			}
+			if (createBenchmark) {
+				generateBenchmark(cu, benchmarkRoot, clazz, fields);
+			}
+		} catch (JavaModelException e) {
+			StatusManager.getManager().handle(e.getStatus(), StatusManager.LOG | StatusManager.SHOW);
+		} catch (MalformedTreeException e) {
+			e.printStackTrace();
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void generateNestedBuilder(ICompilationUnit cu, IType clazz, List<IField> fields, IMethod constructor)
+			throws JavaModelException, MalformedTreeException, BadLocationException {
+		String clazzName = clazz.getElementName();
+		String builderClassName = /*clazzName +*/ "Builder";
+		// factory methods the current options no longer produce are removed, missing ones are added below
+		removeOldStaticBuilderMethods(clazz, builderClassName);
+
+		IBuffer buffer = cu.getBuffer();
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		pw.println();
+		pw.println("public static class " + builderClassName + " {");
+
+
+		int pos = clazz.getSourceRange().getOffset() + clazz.getSourceRange().getLength() - 1;
+
+		createBuilderBody(pw, clazz, fields, builderClassName);
+		pw.println("}");
+		if (constructor == null) {
+			createBeanConstructor(pw, clazz, fields);
+		}
+		if ( createBuildFactoryMethodOnBean ) {
+		  createBuildFactoryMethodOnBean(pw, clazz, builderClassName);
+		}
+		createStaticBuilderMethod(pw, clazz, builderClassName);
+		
+		if (formatSource) {
+			pw.println();
+			buffer.replace(pos, 0, sw.toString());
+			String builderSource = buffer.getContents();
+		
+			TextEdit text = ToolFactory.createCodeFormatter(null).format(CodeFormatter.K_COMPILATION_UNIT, builderSource, 0, builderSource.length(), 0, "\n");
+			// text is null if source cannot be formatted
+			if (text != null) {
+				Document simpleDocument = new Document(builderSource);
+				text.apply(simpleDocument);
+				buffer.setContents(simpleDocument.get());
+			} 
+		} else {
+			buffer.replace(pos, 0, sw.toString());	
+		}
+	}
+
+	/**
+	 * Imports the types of inherited fields that the superclass imports but
+	 * the bean may not, so their simple type names resolve in the nested
+	 * builder. The companion builder imports them itself.
+	 */
+	private void addInheritedFieldImports(ICompilationUnit cu, IType clazz, List<IField> fields) throws JavaModelException {
+		List<IField> inheritedFields = new ArrayList<IField>();
+		for (IField field : fields) {
+			if (Resolver.isInherited(field, clazz)) {
+				inheritedFields.add(field);
+			}
+		}
+		for (String importName : getFieldTypeImports(clazz, inheritedFields)) {
+			cu.createImport(importName, null, null);
+		}
+	}
 
-			IBuffer buffer = cu.getBuffer();
-			StringWriter sw = new StringWriter();
-			PrintWriter pw = new PrintWriter(sw);
+	private void createBuilderBody(PrintWriter pw, IType clazz, List<IField> fields, String builderClassName) throws JavaModelException {
+		createFieldDeclarations(pw, fields);
+
+		if (createCopyConstructor || useCopyOnWriteCollections) {
+			pw.println("public " + builderClassName + "(){}");
+		}
+		if (createCopyConstructor) {
+			createCopyConstructor(pw, clazz, fields, builderClassName);
+		}
+		if (useCopyOnWriteCollections) {
+			createBuilderCopyConstructor(pw, fields, builderClassName);
+		}
+
+		createBuilderMethods(pw, fields, builderClassName);
+		createPrivateBuilderConstructor(pw, clazz, fields);
+	}
+
+	/**
+	 * Writes the builder to a sibling <code>&lt;Clazz&gt;Builder.java</code> in the
+	 * package of the bean. The bean itself only receives the static factory
+	 * methods and, when a copy constructor is requested, package-private
+	 * accessors for fields that have no getter yet, so regeneration leaves the
+	 * bean (almost) untouched.
+	 */
+	private void generateCompanionBuilder(ICompilationUnit cu, IType clazz, List<IField> fields, IMethod constructor)
+			throws JavaModelException, MalformedTreeException, BadLocationException {
+		String builderClassName = clazz.getElementName() + "Builder";
+		IPackageFragment packageFragment = (IPackageFragment) cu.getParent();
+
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		if (!packageFragment.isDefaultPackage()) {
+			pw.println("package " + packageFragment.getElementName() + ";");
 			pw.println();
-			pw.println("public static class " + builderClassName + " {");
+		}
+		for (String importName : getCompanionImports(clazz, fields)) {
+			pw.println("import " + importName + ";");
+		}
+		pw.println();
+		pw.println("public class " + builderClassName + " {");
+		createBuilderBody(pw, clazz, fields, builderClassName);
+		pw.println("}");
+		pw.flush();
 
+		String builderSource = sw.toString();
+		if (formatSource) {
+			builderSource = format(CodeFormatter.K_COMPILATION_UNIT, builderSource);
+		}
+		packageFragment.createCompilationUnit(builderClassName + ".java", builderSource, true, null);
 
+		removeOldStaticBuilderMethods(clazz, builderClassName);
+		StringWriter beanWriter = new StringWriter();
+		PrintWriter beanPw = new PrintWriter(beanWriter);
+		if (createCopyConstructor) {
+			createBeanAccessors(beanPw, clazz, fields);
+		}
+		if (constructor == null) {
+			createBeanConstructor(beanPw, clazz, fields);
+		}
+		if ( createBuildFactoryMethodOnBean ) {
+			createBuildFactoryMethodOnBean(beanPw, clazz, builderClassName);
+		}
+		createStaticBuilderMethod(beanPw, clazz, builderClassName);
+		beanPw.flush();
+
+		String beanSource = beanWriter.toString();
+		if (beanSource.trim().length() > 0) {
+			// only touched when the factory methods, accessors or constructor are missing
+			if (formatSource) {
+				beanSource = format(CodeFormatter.K_CLASS_BODY_DECLARATIONS, beanSource);
+			}
 			int pos = clazz.getSourceRange().getOffset() + clazz.getSourceRange().getLength() - 1;
+			cu.getBuffer().replace(pos, 0, "\n" + beanSource);
+		}
+		if (constructor != null && Flags.isPrivate(constructor.getFlags())) {
+			// the constructor lies before the insertion point, so its source range is still valid
+			makePackagePrivate(cu.getBuffer(), constructor);
+		}
+	}
 
-			createFieldDeclarations(pw, fields);
+	/**
+	 * Returns the constructor <code>build()</code> calls, or <code>null</code>
+	 * if it is to be generated. Only a constructor for declared fields can be
+	 * generated, as it cannot assign the fields of a superclass, so selecting
+	 * an inherited field without a matching constructor is an error.
+	 */
+	private IMethod findBeanConstructor(IType clazz, List<IField> fields) throws JavaModelException {
+		IMethod constructor = findConstructor(clazz, fields);
+		if (constructor == null) {
+			for (IField field : fields) {
+				if (Resolver.isInherited(field, clazz)) {
+					throw error(clazz.getElementName() + " needs a constructor taking the selected fields, including the inherited field "
+							+ getName(field) + ", in the order they are listed");
+				}
+			}
+		}
+		return constructor;
+	}
 
-			if (createCopyConstructor) {
-				createCopyConstructor(pw, clazz, fields, builderClassName);
+	/**
+	 * Returns the constructor whose parameter types match the types of the
+	 * fields in order, or <code>null</code> if the bean has none.
+	 */
+	private IMethod findConstructor(IType clazz, List<IField> fields) throws JavaModelException {
+		for (IMethod method : clazz.getMethods()) {
+			String[] parameterTypes = method.getParameterTypes();
+			if (!method.isConstructor() || parameterTypes.length != fields.size()) {
+				continue;
+			}
+			boolean matches = true;
+			for (int i = 0; i < parameterTypes.length && matches; i++) {
+				matches = Signature.toString(parameterTypes[i]).equals(getType(fields.get(i)));
+			}
+			if (matches) {
+				return method;
 			}
+		}
+		return null;
+	}
 
-			createBuilderMethods(pw, fields, builderClassName);
-			createPrivateBuilderConstructor(pw, clazz, fields);
+	/**
+	 * Creates the package-private constructor the builder's
+	 * <code>build()</code> calls, for beans that do not have one yet. A bean
+	 * that declared no constructor at all also gets an explicit no-arg
+	 * constructor with the visibility of the class, replacing the implicit
+	 * one that adding a constructor removes.
+	 */
+	private void createBeanConstructor(PrintWriter pw, IType clazz, List<IField> fields) throws JavaModelException {
+		boolean implicitConstructor = true;
+		for (IMethod method : clazz.getMethods()) {
+			implicitConstructor &= !method.isConstructor();
+		}
+		if (implicitConstructor) {
+			int flags = clazz.getFlags();
+			String visibility = Flags.isPublic(flags) ? "public " : Flags.isProtected(flags) ? "protected " : Flags.isPrivate(flags) ? "private " : "";
+			pw.println(visibility + clazz.getElementName() + "(){");
 			pw.println("}");
-			if ( createBuildFactoryMethodOnBean ) {
-			  createBuildFactoryMethodOnBean(pw, clazz, builderClassName);
+			if (fields.isEmpty()) {
+				return;
 			}
-			createStaticBuilderMethod(pw, clazz, builderClassName);
-			
-			if (formatSource) {
-				pw.println();
-				buffer.replace(pos, 0, sw.toString());
-				String builderSource = buffer.getContents();
-			
-				TextEdit text = ToolFactory.createCodeFormatter(null).format(CodeFormatter.K_COMPILATION_UNIT, builderSource, 0, builderSource.length(), 0, "\n");
-				// text is null if source cannot be formatted
-				if (text != null) {
-					Document simpleDocument = new Document(builderSource);
-					text.apply(simpleDocument);
-					buffer.setContents(simpleDocument.get());
-				} 
+		}
+		StringBuilder parameters = new StringBuilder();
+		for (IField field : fields) {
+			parameters.append(parameters.length() == 0 ? "" : ", ").append(getType(field)).append(" ").append(getName(field));
+		}
+		pw.println(clazz.getElementName() + "(" + parameters + "){");
+		for (IField field : fields) {
+			pw.println("this." + getName(field) + "=" + getName(field) + ";");
+		}
+		pw.println("}");
+	}
+
+	/**
+	 * Removes the <code>private</code> modifier of the constructor, so the
+	 * companion builder in the same package can call it.
+	 */
+	private void makePackagePrivate(IBuffer buffer, IMethod constructor) throws JavaModelException {
+		int start = constructor.getSourceRange().getOffset();
+		String modifiers = buffer.getText(start, constructor.getNameRange().getOffset() - start);
+		Matcher matcher = PRIVATE_MODIFIER.matcher(modifiers);
+		int modifierStart = -1;
+		int modifierEnd = -1;
+		while (matcher.find()) {
+			modifierStart = matcher.start();
+			modifierEnd = matcher.end();
+		}
+		if (modifierStart >= 0) {
+			buffer.replace(start + modifierStart, modifierEnd - modifierStart, "");
+		}
+	}
+
+	private JavaModelException error(String message) {
+		return new JavaModelException(new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, message)));
+	}
+
+	/**
+	 * Returns the imports a file generated in the package of the bean needs
+	 * for the types of the fields, resolved where each field is declared.
+	 */
+	private Set<String> getFieldTypeImports(IType clazz, List<IField> fields) {
+		String packageName = clazz.getPackageFragment().getElementName();
+		Set<String> imports = new LinkedHashSet<String>();
+		for (IField field : fields) {
+			for (String importName : Resolver.getTypeImports(field)) {
+				int lastDot = importName.lastIndexOf('.');
+				String importPackage = lastDot < 0 ? "" : importName.substring(0, lastDot);
+				if (!importPackage.equals(packageName)) {
+					imports.add(importName);
+				}
+			}
+		}
+		return imports;
+	}
+
+	/**
+	 * Returns the imports of the companion builder: the types of the fields
+	 * and the <code>java.util</code> classes the generated methods use.
+	 */
+	private Set<String> getCompanionImports(IType clazz, List<IField> fields) {
+		Set<String> imports = getFieldTypeImports(clazz, fields);
+		for (IField field : fields) {
+			if (isCollection(getType(field))) {
+				if (generateVarargMethodsForCollections) {
+					imports.add("java.util.Arrays");
+				}
+				if (generateAddedRemovedMethodsForCollections) {
+					imports.add("java.util.Collection");
+					imports.add("java.util.Collections");
+					imports.add("java.util.TreeSet");
+				}
+			}
+		}
+		return imports;
+	}
+
+	/**
+	 * Formats a snippet of source on its own, returning it unchanged if it
+	 * cannot be formatted.
+	 */
+	private String format(int kind, String source) throws MalformedTreeException, BadLocationException {
+		TextEdit text = ToolFactory.createCodeFormatter(null).format(kind, source, 0, source.length(), 0, "\n");
+		// text is null if source cannot be formatted
+		if (text == null) {
+			return source;
+		}
+		Document simpleDocument = new Document(source);
+		text.apply(simpleDocument);
+		return simpleDocument.get();
+	}
+
+	/**
+	 * Writes a JMH benchmark for the generated builder to
+	 * <code>&lt;benchmarkSourceFolder&gt;/&lt;package&gt;/&lt;Clazz&gt;BuilderBenchmark.java</code>.
+	 * It measures <code>builder()...build()</code>, the collection setters for
+	 * each of the configured collection sizes and, when a copy constructor is
+	 * generated, copying from an existing object. Collections whose elements
+	 * cannot be created are left empty.
+	 */
+	private void generateBenchmark(ICompilationUnit cu, IPackageFragmentRoot root, IType clazz, List<IField> fields)
+			throws JavaModelException, MalformedTreeException, BadLocationException {
+		String clazzName = clazz.getElementName();
+		String benchmarkClassName = clazzName + "BuilderBenchmark";
+		String packageName = cu.getParent().getElementName();
+		IPackageFragment packageFragment = root.createPackageFragment(packageName, true, null);
+
+		List<IField> collectionFields = new ArrayList<IField>();
+		List<IField> scalarFields = new ArrayList<IField>();
+		Map<IField, String> elementStatements = new LinkedHashMap<IField, String>();
+		for (IField field : fields) {
+			if (isCollection(getType(field))) {
+				collectionFields.add(field);
+				Matcher matcher = COLLECTION_TYPE.matcher(getType(field));
+				matcher.find();
+				String elementStatement = getBenchmarkElementStatement(field, matcher.group(2), packageName);
+				if (elementStatement != null) {
+					elementStatements.put(field, elementStatement);
+				}
 			} else {
-				buffer.replace(pos, 0, sw.toString());	
+				scalarFields.add(field);
 			}
-		} catch (JavaModelException e) {
-			e.printStackTrace();
-		} catch (MalformedTreeException e) {
-			e.printStackTrace();
-		} catch (BadLocationException e) {
-			e.printStackTrace();
 		}
+
+		StringWriter sw = new StringWriter();
+		PrintWriter pw = new PrintWriter(sw);
+		if (packageName.length() > 0) {
+			pw.println("package " + packageName + ";");
+			pw.println();
+		}
+		Set<String> imports = getFieldTypeImports(clazz, collectionFields);
+		for (IField field : collectionFields) {
+			Matcher matcher = COLLECTION_TYPE.matcher(getType(field));
+			matcher.find();
+			imports.add("java.util." + getBenchmarkCollectionType(getType(field), matcher.group(1)));
+		}
+		imports.add("java.util.concurrent.TimeUnit");
+		for (String annotation : new String[] { "Benchmark", "BenchmarkMode", "Mode", "OutputTimeUnit", "Scope", "Setup", "State" }) {
+			imports.add("org.openjdk.jmh.annotations." + annotation);
+		}
+		if (!elementStatements.isEmpty()) {
+			imports.add("org.openjdk.jmh.annotations.Param");
+		}
+		for (String importName : imports) {
+			pw.println("import " + importName + ";");
+		}
+		pw.println();
+		pw.println("@State(Scope.Thread)");
+		pw.println("@BenchmarkMode(Mode.Throughput)");
+		pw.println("@OutputTimeUnit(TimeUnit.MICROSECONDS)");
+		pw.println("public class " + benchmarkClassName + " {");
+		if (!elementStatements.isEmpty()) {
+			StringBuilder sizes = new StringBuilder();
+			for (int size : parseCollectionSizes(benchmarkCollectionSizes)) {
+				sizes.append(sizes.length() == 0 ? "" : ", ").append('"').append(size).append('"');
+			}
+			pw.println("@Param({" + sizes + "})");
+			pw.println("public int size;");
+		}
+		for (IField field : collectionFields) {
+			pw.println("private " + getType(field) + " " + getName(field) + ";");
+		}
+		pw.println("private " + clazzName + " template;");
+
+		pw.println("@Setup");
+		pw.println("public void setUp() {");
+		for (IField field : collectionFields) {
+			Matcher matcher = COLLECTION_TYPE.matcher(getType(field));
+			matcher.find();
+			String elementType = matcher.group(2);
+			String suffix = getMethodNameSuffix(field);
+			pw.println(getName(field) + " = new " + getBenchmarkCollectionType(getType(field), matcher.group(1)) + "<" + elementType + ">();");
+			if (elementStatements.containsKey(field)) {
+				pw.println("for (int i = 0; i < size; i++) {");
+				pw.println(getName(field) + ".add(new" + suffix + "Element(i));");
+				pw.println("}");
+			}
+		}
+		pw.println("template = " + clazzName + ".builder()");
+		printBenchmarkSetterCalls(pw, scalarFields, false);
+		printBenchmarkSetterCalls(pw, collectionFields, true);
+		pw.println(".build();");
+		pw.println("}");
+
+		pw.println("@Benchmark");
+		pw.println("public " + clazzName + " builderBuild() {");
+		pw.println("return " + clazzName + ".builder()");
+		printBenchmarkSetterCalls(pw, scalarFields, false);
+		printBenchmarkSetterCalls(pw, getRequiredFields(collectionFields), true);
+		pw.println(".build();");
+		pw.println("}");
+
+		if (!collectionFields.isEmpty()) {
+			pw.println("@Benchmark");
+			pw.println("public " + clazzName + " collectionSetters() {");
+			pw.println("return " + clazzName + ".builder()");
+			// required scalars are set as well, otherwise build() throws
+			printBenchmarkSetterCalls(pw, getRequiredFields(scalarFields), false);
+			printBenchmarkSetterCalls(pw, collectionFields, true);
+			pw.println(".build();");
+			pw.println("}");
+		}
+
+		if (createCopyConstructor) {
+			pw.println("@Benchmark");
+			pw.println("public " + clazzName + " copyFromExisting() {");
+			pw.println("return " + clazzName + ".builder(template).build();");
+			pw.println("}");
+		}
+
+		for (Map.Entry<IField, String> entry : elementStatements.entrySet()) {
+			Matcher matcher = COLLECTION_TYPE.matcher(getType(entry.getKey()));
+			matcher.find();
+			String elementType = matcher.group(2);
+			pw.println("private static " + elementType + " new" + getMethodNameSuffix(entry.getKey()) + "Element(int i) {");
+			pw.println(entry.getValue());
+			pw.println("}");
+		}
+		pw.println("}");
+		pw.flush();
+
+		String benchmarkSource = sw.toString();
+		if (formatSource) {
+			benchmarkSource = format(CodeFormatter.K_COMPILATION_UNIT, benchmarkSource);
+		}
+		packageFragment.createCompilationUnit(benchmarkClassName + ".java", benchmarkSource, true, null);
+	}
+
+	private void printBenchmarkSetterCalls(PrintWriter pw, List<IField> fields, boolean collections) {
+		for (IField field : fields) {
+			String value = collections ? getName(field) : getBenchmarkValue(getType(field));
+			pw.println("." + getSetterName(field) + "(" + value + ")");
+		}
+	}
+
+	private String getBenchmarkCollectionType(String fieldType, String collectionKind) {
+		if (fieldType.startsWith("Sorted") || fieldType.startsWith("Navigable")) {
+			return "TreeSet";
+		}
+		return "Set".equals(collectionKind) ? "HashSet" : "ArrayList";
+	}
+
+	private String getBenchmarkValue(String fieldType) {
+		if ("boolean".equals(fieldType)) {
+			return "true";
+		} else if ("char".equals(fieldType)) {
+			return "'x'";
+		} else if ("byte".equals(fieldType) || "short".equals(fieldType)) {
+			return "(" + fieldType + ") 1";
+		} else if ("int".equals(fieldType) || "long".equals(fieldType) || "float".equals(fieldType) || "double".equals(fieldType)) {
+			return "1";
+		} else if ("String".equals(fieldType)) {
+			return "\"value\"";
+		}
+		return "null";
+	}
+
+	/**
+	 * Returns the body of the factory method creating the i'th element of the
+	 * collection, or <code>null</code> if the element type has neither a
+	 * known factory nor a no-arg constructor the benchmark can call, or ends
+	 * up in a sorted collection, either the field's own or the
+	 * <code>TreeSet</code> the builder copies collections into when it has
+	 * added/removed methods.
+	 */
+	private String getBenchmarkElementStatement(IField field, String elementType, String packageName) throws JavaModelException {
+		if ("String".equals(elementType)) {
+			return "return \"element\" + i;";
+		} else if ("Integer".equals(elementType) || "Long".equals(elementType)) {
+			return "return " + elementType + ".valueOf(i);";
+		}
+		if (generateAddedRemovedMethodsForCollections || "TreeSet".equals(getBenchmarkCollectionType(getType(field), ""))) {
+			// instances created by a no-arg constructor are neither distinct nor necessarily Comparable
+			return null;
+		}
+		String[][] resolved = field.getDeclaringType().resolveType(elementType);
+		if (resolved == null || resolved.length != 1) {
+			return null;
+		}
+		IType elementClazz = field.getJavaProject().findType(resolved[0][0], resolved[0][1].replace('$', '.'));
+		if (elementClazz == null || !elementClazz.isClass() || Flags.isAbstract(elementClazz.getFlags())
+				|| (elementClazz.getDeclaringType() != null && !Flags.isStatic(elementClazz.getFlags()))) {
+			return null;
+		}
+		boolean samePackage = elementClazz.getPackageFragment().getElementName().equals(packageName);
+		if (!samePackage && !Flags.isPublic(elementClazz.getFlags())) {
+			return null;
+		}
+		boolean hasConstructor = false;
+		for (IMethod method : elementClazz.getMethods()) {
+			if (!method.isConstructor()) {
+				continue;
+			}
+			hasConstructor = true;
+			int flags = method.getFlags();
+			if (method.getParameterTypes().length == 0 && !Flags.isPrivate(flags) && (samePackage || Flags.isPublic(flags))) {
+				return "return new " + elementType + "();";
+			}
+		}
+		return hasConstructor ? null : "return new " + elementType + "();";
+	}
+
+	/**
+	 * Returns the source folder the benchmark is written to, reporting an
+	 * error if it is not a source folder of the project.
+	 */
+	private IPackageFragmentRoot getBenchmarkRoot(ICompilationUnit cu) throws JavaModelException {
+		IJavaProject javaProject = cu.getJavaProject();
+		IPackageFragmentRoot root = javaProject.getPackageFragmentRoot(javaProject.getProject().getFolder(benchmarkSourceFolder));
+		if (!root.exists()) {
+			throw error("Benchmark source folder " + benchmarkSourceFolder + " is not a source folder of " + javaProject.getElementName()
+					+ "; add it to the build path or choose another folder");
+		}
+		return root;
+	}
+
+	/**
+	 * Returns whether the text is a comma separated list of at least one
+	 * non-negative collection size.
+	 */
+	public static boolean isValidCollectionSizes(String collectionSizes) {
+		try {
+			parseCollectionSizes(collectionSizes);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private static List<Integer> parseCollectionSizes(String collectionSizes) {
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (String size : collectionSizes.split(",")) {
+			int value = Integer.parseInt(size.trim());
+			if (value < 0) {
+				throw new IllegalArgumentException("Collection sizes must not be negative, was " + value);
+			}
+			sizes.add(value);
+		}
+		return sizes;
+	}
+
+	/**
+	 * Removes the factory methods generated for a nested <code>Builder</code>
+	 * or a companion <code>&lt;Clazz&gt;Builder</code> that the current options
+	 * no longer produce, so switching between the two modes does not leave
+	 * clashing methods behind. Methods that are still wanted are kept where
+	 * they are and not generated again.
+	 */
+	private void removeOldStaticBuilderMethods(IType clazz, String builderClassName) throws JavaModelException {
+		String nestedBuilderSignature = "QBuilder;";
+		String companionBuilderSignature = "Q" + clazz.getElementName() + "Builder;";
+		for (IMethod method : clazz.getMethods()) {
+			String returnType = method.getReturnType();
+			if ((method.getElementName().equals("builder") || method.getElementName().equals("build"))
+					&& (returnType.equals(nestedBuilderSignature) || returnType.equals(companionBuilderSignature))
+					&& !isWantedFactoryMethod(method, clazz, builderClassName)) {
+				method.delete(true, null);
+			}
+		}
+	}
+
+	private boolean isWantedFactoryMethod(IMethod method, IType clazz, String builderClassName) throws JavaModelException {
+		if (!method.getReturnType().equals("Q" + builderClassName + ";")) {
+			return false;
+		}
+		String[] parameterTypes = method.getParameterTypes();
+		boolean isStatic = Flags.isStatic(method.getFlags());
+		if (method.getElementName().equals("builder")) {
+			return isStatic && (parameterTypes.length == 0
+					|| (createCopyConstructor && parameterTypes.length == 1 && parameterTypes[0].equals("Q" + clazz.getElementName() + ";")));
+		}
+		return !isStatic && parameterTypes.length == 0 && createBuildFactoryMethodOnBean;
 	}
 
 	private void removeOldBuilderClass(ICompilationUnit cu) throws JavaModelException {
@@ -113,34 +691,228 @@ public class BuilderGenerator implements Generator {
 
 	private void createCopyConstructor(PrintWriter pw, IType clazz, List<IField> fields, String builderClassName) {
 		String clazzName = clazz.getElementName();
-		pw.println("public " + builderClassName + "(){}");
 		pw.println("public " + builderClassName + "(" + clazzName + " object){");
 		for (IField field : fields) {
-			pw.println("this." + getName(field) + "=object." + getName(field)
+			pw.println("this." + getName(field) + "=object." + getFieldAccess(field)
 					+ ";");
 		}
+		if (useCopyOnWriteCollections) {
+			printSharedFlags(pw, fields, "this", true);
+		}
+		if (!getRequiredFields(fields).isEmpty()) {
+			// a built object has every required field
+			pw.println("this.initializedFields=" + (getRequiredFields(fields).size() > 64 ? "REQUIRED_FIELDS.clone()" : "REQUIRED_FIELDS") + ";");
+		}
 		pw.println("}");
 
 	}
 
+	/**
+	 * Creates a constructor deriving a builder from another builder. Collection
+	 * fields are shared with the source builder, and both sides are marked so
+	 * that whichever writes first takes a private copy.
+	 */
+	private void createBuilderCopyConstructor(PrintWriter pw, List<IField> fields, String builderClassName) {
+		pw.println("public " + builderClassName + "(" + builderClassName + " other){");
+		for (IField field : fields) {
+			pw.println("this." + getName(field) + "=other." + getName(field) + ";");
+		}
+		printSharedFlags(pw, fields, "this", true);
+		printSharedFlags(pw, fields, "other", true);
+		if (!getRequiredFields(fields).isEmpty()) {
+			pw.println("this.initializedFields=other.initializedFields" + (getRequiredFields(fields).size() > 64 ? ".clone()" : "") + ";");
+		}
+		pw.println("}");
+	}
+
+	private void printSharedFlags(PrintWriter pw, List<IField> fields, String target, boolean shared) {
+		for (IField field : fields) {
+			if (isCollection(getType(field))) {
+				pw.println(target + "." + getSharedFlagName(field) + "=" + shared + ";");
+			}
+		}
+	}
+
 	private void createPrivateBuilderConstructor(PrintWriter pw, IType clazz, List<IField> fields) {
         String clazzName = clazz.getElementName();
+        if (internInstances) {
+            createInternCache(pw, clazzName);
+        }
         pw.println("public " + clazzName + " build(){");
-        pw.println("return new " + clazzName +"(");
-        Iterator<IField> iterator = fields.iterator();
-        while(iterator.hasNext()) {
-            IField field = iterator.next();
-            String name = getName(field);
-            pw.print(name);
-            if (iterator.hasNext()) {
-                pw.print(",");
-            }
-            
+        printRequiredFieldsCheck(pw, fields);
+        if (useCopyOnWriteCollections) {
+            // the built object now references the collections, so further writes must copy
+            printSharedFlags(pw, fields, "this", true);
+        }
+        if (internInstances) {
+            // a hit only reads the map; the collections are copied for the stored key on a miss
+            pw.println(clazzName + " interned = INTERNED.get(java.util.Arrays.<Object>asList(" + joinFieldNames(fields) + "));");
+            pw.println("if (interned != null) {");
+            pw.println("  return interned;");
+            pw.println("}");
+            pw.println(clazzName + " built = new " + clazzName + "(" + joinFieldNames(fields) + ");");
+            pw.println("java.util.List<Object> key = java.util.Arrays.<Object>asList(" + joinInternKeyValues(fields) + ");");
+            pw.println("interned = INTERNED.putIfAbsent(key, built);");
+            pw.println("if (interned != null) {");
+            pw.println("  return interned;");
+            pw.println("}");
+            pw.println("INTERNED_ORDER.add(key);");
+            pw.println("while (INTERNED.size() > INTERN_CACHE_SIZE) {");
+            pw.println("  java.util.List<Object> eldest = INTERNED_ORDER.poll();");
+            pw.println("  if (eldest == null) {");
+            pw.println("    break;");
+            pw.println("  }");
+            pw.println("  INTERNED.remove(eldest);");
+            pw.println("}");
+            pw.println("return built;");
+        } else {
+            pw.println("return new " + clazzName +"(" + joinFieldNames(fields) + ");");
         }
-        pw.println(");");
         pw.println("}");
+        createMissingRequiredFieldsMethod(pw, fields);
     }
 
+	/**
+	 * Creates a bounded cache of built instances keyed by the values of the
+	 * selected fields. It is a <code>ConcurrentHashMap</code> without locks,
+	 * so lookups never block each other. The oldest entries are evicted first
+	 * through a queue of the stored keys; unlike least-recently-used order,
+	 * this keeps a hit from writing anything.
+	 */
+	private void createInternCache(PrintWriter pw, String clazzName) {
+		pw.println("private static final int INTERN_CACHE_SIZE = " + internCacheSize + ";");
+		pw.println("private static final java.util.concurrent.ConcurrentMap<java.util.List<Object>, " + clazzName + "> INTERNED = new java.util.concurrent.ConcurrentHashMap<java.util.List<Object>, " + clazzName + ">();");
+		pw.println("private static final java.util.Queue<java.util.List<Object>> INTERNED_ORDER = new java.util.concurrent.ConcurrentLinkedQueue<java.util.List<Object>>();");
+	}
+
+	private List<IField> getRequiredFields(List<IField> fields) {
+		List<IField> required = new ArrayList<IField>();
+		for (IField field : fields) {
+			if (requiredFields.contains(getName(field))) {
+				required.add(field);
+			}
+		}
+		return required;
+	}
+
+	/**
+	 * Declares the bits of the required fields, one per field in field order,
+	 * in a single <code>long</code>, or a <code>long[]</code> for more than 64
+	 * required fields.
+	 */
+	private void createRequiredFieldsMask(PrintWriter pw, List<IField> fields) {
+		int count = getRequiredFields(fields).size();
+		if (count == 0) {
+			return;
+		}
+		if (count <= 64) {
+			long mask = count == 64 ? -1L : (1L << count) - 1;
+			pw.println("private static final long REQUIRED_FIELDS = 0x" + Long.toHexString(mask) + "L;");
+			pw.println("private long initializedFields;");
+		} else {
+			int words = (count + 63) / 64;
+			StringBuilder masks = new StringBuilder();
+			for (int word = 0; word < words; word++) {
+				int bits = Math.min(64, count - word * 64);
+				long mask = bits == 64 ? -1L : (1L << bits) - 1;
+				masks.append(word == 0 ? "" : ", ").append("0x").append(Long.toHexString(mask)).append("L");
+			}
+			pw.println("private static final long[] REQUIRED_FIELDS = {" + masks + "};");
+			pw.println("private long[] initializedFields = new long[" + words + "];");
+		}
+	}
+
+	private void printMarkInitialized(PrintWriter pw, int requiredIndex, int requiredCount) {
+		if (requiredIndex < 0) {
+			return;
+		}
+		String bit = "0x" + Long.toHexString(1L << (requiredIndex % 64)) + "L";
+		if (requiredCount <= 64) {
+			pw.println("  this.initializedFields |= " + bit + ";");
+		} else {
+			pw.println("  this.initializedFields[" + (requiredIndex / 64) + "] |= " + bit + ";");
+		}
+	}
+
+	private void printRequiredFieldsCheck(PrintWriter pw, List<IField> fields) {
+		int count = getRequiredFields(fields).size();
+		if (count == 0) {
+			return;
+		} else if (count <= 64) {
+			pw.println("if ((initializedFields & REQUIRED_FIELDS) != REQUIRED_FIELDS) {");
+		} else {
+			StringBuilder condition = new StringBuilder();
+			for (int word = 0; word < (count + 63) / 64; word++) {
+				condition.append(word == 0 ? "" : " || ").append("initializedFields[").append(word).append("] != REQUIRED_FIELDS[").append(word).append("]");
+			}
+			pw.println("if (" + condition + ") {");
+		}
+		pw.println("  throw new IllegalStateException(missingRequiredFields());");
+		pw.println("}");
+	}
+
+	/**
+	 * Creates the method naming the unset required fields. It is only called
+	 * when the mask check in <code>build()</code> fails.
+	 */
+	private void createMissingRequiredFieldsMethod(PrintWriter pw, List<IField> fields) {
+		List<IField> required = getRequiredFields(fields);
+		if (required.isEmpty()) {
+			return;
+		}
+		pw.println("private String missingRequiredFields() {");
+		pw.println("  StringBuilder missing = new StringBuilder(\"Required fields not set:\");");
+		for (int i = 0; i < required.size(); i++) {
+			String bits = required.size() <= 64 ? "initializedFields" : "initializedFields[" + (i / 64) + "]";
+			pw.println("  if ((" + bits + " & 0x" + Long.toHexString(1L << (i % 64)) + "L) == 0) {");
+			pw.println("    missing.append(\" " + getName(required.get(i)) + "\");");
+			pw.println("  }");
+		}
+		pw.println("  return missing.toString();");
+		pw.println("}");
+	}
+
+	/**
+	 * Returns the values making up a stored intern key. Collections are copied
+	 * into unmodifiable snapshots, so later changes to the builder's or the
+	 * built object's collections cannot change the hash of a cached key. The
+	 * snapshot of a <code>Collection</code> field is a set when the builder
+	 * keeps it in a <code>TreeSet</code>, so it equals the live collection
+	 * looked up on the next build.
+	 */
+	private String joinInternKeyValues(List<IField> fields) {
+		StringBuilder values = new StringBuilder();
+		for (IField field : fields) {
+			String name = getName(field);
+			Matcher matcher = COLLECTION_TYPE.matcher(getType(field));
+			values.append(values.length() == 0 ? "" : ",");
+			if (matcher.find()) {
+				String elementType = matcher.group(2);
+				boolean set = "Set".equals(matcher.group(1))
+						|| ("Collection".equals(matcher.group(1)) && generateAddedRemovedMethodsForCollections);
+				String snapshot = set
+						? "java.util.Collections.unmodifiableSet(new java.util.HashSet<" + elementType + ">(" + name + "))"
+						: "java.util.Collections.unmodifiableList(new java.util.ArrayList<" + elementType + ">(" + name + "))";
+				values.append(name).append(" == null ? null : ").append(snapshot);
+			} else {
+				values.append(name);
+			}
+		}
+		return values.toString();
+	}
+
+	private String joinFieldNames(List<IField> fields) {
+		StringBuilder names = new StringBuilder();
+		Iterator<IField> iterator = fields.iterator();
+		while (iterator.hasNext()) {
+			names.append(getName(iterator.next()));
+			if (iterator.hasNext()) {
+				names.append(",");
+			}
+		}
+		return names.toString();
+	}
+
 	private void createBuilderMethods(PrintWriter pw, List<IField> fields, String builderClassName) throws JavaModelException {
 		for (IField field : fields) {
 			String fieldName = getName(field);
@@ -149,9 +921,11 @@ public class BuilderGenerator implements Generator {
 			String parameterName = baseName;
 			String methodNameSuffix = baseName.substring(0, 1).toUpperCase() + baseName.substring(1);
 			String methodNamePrefix = (this.useWithPrefix) ?  (" with" + methodNameSuffix) : (baseName);
+			String sharedFlagName = getSharedFlagName(field);
+			int requiredIndex = getRequiredFields(fields).indexOf(field);
+			int requiredCount = getRequiredFields(fields).size();
 			boolean isCollection;
-			Matcher matcher = Pattern.compile(
-					"\\w*(Collection|List|Set)<(\\w+)>").matcher(fieldType);
+			Matcher matcher = COLLECTION_TYPE.matcher(fieldType);
 			isCollection = (matcher.find());
 
 			//@formatter:off
@@ -159,12 +933,17 @@ public class BuilderGenerator implements Generator {
 			    printJavadoc(pw, baseName, "Sets", false);
 				pw.println("public " + builderClassName + " " + methodNamePrefix + "(" + fieldType + " " + parameterName + ") {");
 				pw.println("  this." + baseName + "=" + parameterName + ";");
+				printMarkInitialized(pw, requiredIndex, requiredCount);
 				pw.println("return this;");
 				pw.println("}");
 			} else  {
 			    printJavadoc(pw, baseName, "Sets", true);
 			    pw.println("public " + builderClassName + " " + methodNamePrefix + "(" + fieldType + " " + parameterName + ") {");
 				pw.println("  this." + baseName + " = new" + methodNameSuffix + "(check" + methodNameSuffix + "(" + parameterName + "));");
+				if ( useCopyOnWriteCollections ) {
+					pw.println("  this." + sharedFlagName + " = false;");
+				}
+				printMarkInitialized(pw, requiredIndex, requiredCount);
 				pw.println("  return this;");
 				pw.println("}");
 	
@@ -182,6 +961,7 @@ public class BuilderGenerator implements Generator {
 					pw.println("public " + builderClassName + " " + methodNamePrefix + "Added(" + fieldType + " " + parameterName + ") {");
 				    pw.println("  init"+methodNameSuffix+"();");
 				    pw.println("  this." + baseName + ".addAll(check" + methodNameSuffix + "(" + parameterName + "));");
+				    printMarkInitialized(pw, requiredIndex, requiredCount);
 				    pw.println("  return this;");
 					pw.println("}");
 					
@@ -209,7 +989,14 @@ public class BuilderGenerator implements Generator {
 				    pw.println("private void init" + methodNameSuffix + "() {");
 				    pw.println("  if (this." + baseName + " == null) {");
 				    pw.println("    this." + baseName + " = new" + methodNameSuffix + "(Collections.<" + ptype + ">emptySet());");
-				    pw.println("  }");
+				    if ( useCopyOnWriteCollections ) {
+				    	pw.println("  } else if (this." + sharedFlagName + ") {");
+				    	pw.println("    this." + baseName + " = new" + methodNameSuffix + "(this." + baseName + ");");
+				    	pw.println("  }");
+				    	pw.println("  this." + sharedFlagName + " = false;");
+				    } else {
+				    	pw.println("  }");
+				    }
 				    pw.println("}");
 		
 				    pw.println("private Collection<" + ptype + "> new" + methodNameSuffix + "(Collection<" + ptype + "> " + parameterName + ") {");
@@ -280,15 +1067,81 @@ public class BuilderGenerator implements Generator {
 		return NamingConventions.getBaseName(NamingConventions.VK_INSTANCE_FIELD, fieldName, javaProject);
 	}
 
+	/**
+	 * Returns how the builder reads a field from the bean: directly when the
+	 * builder is nested in the bean, through its getter when it lives in a
+	 * companion file.
+	 */
+	private String getFieldAccess(IField field) {
+		return createCompanionBuilderFile ? getGetterName(field) + "()" : getName(field);
+	}
+
+	private String getMethodNameSuffix(IField field) {
+		String baseName = getFieldBaseName(getName(field));
+		return baseName.substring(0, 1).toUpperCase() + baseName.substring(1);
+	}
+
+	private String getSetterName(IField field) {
+		return useWithPrefix ? "with" + getMethodNameSuffix(field) : getFieldBaseName(getName(field));
+	}
+
+	private String getGetterName(IField field) {
+		String baseName = getFieldBaseName(getName(field));
+		String prefix = "boolean".equals(getType(field)) ? "is" : "get";
+		return prefix + baseName.substring(0, 1).toUpperCase() + baseName.substring(1);
+	}
+
+	private void createBeanAccessors(PrintWriter pw, IType clazz, List<IField> fields) throws JavaModelException {
+		ITypeHierarchy hierarchy = SupertypeHierarchyCache.getSupertypeHierarchy(clazz);
+		for (IField field : fields) {
+			String getterName = getGetterName(field);
+			if (!hasGetter(clazz, hierarchy, getterName)) {
+				pw.println(getType(field) + " " + getterName + "(){");
+				pw.println("return " + getName(field) + ";\n}");
+			}
+		}
+	}
+
+	private boolean hasGetter(IType clazz, ITypeHierarchy hierarchy, String getterName) {
+		if (clazz.getMethod(getterName, new String[0]).exists()) {
+			return true;
+		}
+		for (IType superclass : hierarchy.getAllSuperclasses(clazz)) {
+			if (superclass.getMethod(getterName, new String[0]).exists()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isCollection(String fieldType) {
+		return fieldType != null && COLLECTION_TYPE.matcher(fieldType).find();
+	}
+
+	private String getSharedFlagName(IField field) {
+		return getName(field) + "Shared";
+	}
+
 	private void createFieldDeclarations(PrintWriter pw, List<IField> fields) throws JavaModelException {
 		for (IField field : fields) {
 			pw.println("private " + getType(field) + " " + getName(field) + ";");
 		}
+		if (useCopyOnWriteCollections) {
+			for (IField field : fields) {
+				if (isCollection(getType(field))) {
+					pw.println("private boolean " + getSharedFlagName(field) + ";");
+				}
+			}
+		}
+		createRequiredFieldsMask(pw, fields);
 	}
 
 	private void createBuildFactoryMethodOnBean(PrintWriter pw, IType clazz,
 			String builderClassName) {
 		String methodName = "build";
+		if (clazz.getMethod(methodName, new String[0]).exists()) {
+			return;
+		}
 	  pw.println("/**");
 	  pw.println(" * Creates a new {@link "+builderClassName+"} populated with the properties of this object. This is a convenience method which calls the");
 	  pw.println(" * {@link #builder("+clazz.getElementName()+")} method with this object as the passed parameter.");
@@ -303,14 +1156,16 @@ public class BuilderGenerator implements Generator {
         String clazzName = clazz.getElementName();
 //        String methodName = clazzName.substring(0, 1).toLowerCase() + clazzName.substring(1);
 		String methodName = "builder";
-		pw.println("/**");
-		pw.println(" * Creates a new {@link "+builderClassName+"} of {@link "+clazz.getElementName()+"} objects.");
-		pw.println(" * @return a new "+builderClassName);
-		pw.println("");
-		pw.println(" */");
-        pw.println("public static " + builderClassName + " " + methodName + "(){");
-        pw.println("return new " + builderClassName + "();\n}");
-        if ( this.createCopyConstructor ) {
+		if (!clazz.getMethod(methodName, new String[0]).exists()) {
+			pw.println("/**");
+			pw.println(" * Creates a new {@link "+builderClassName+"} of {@link "+clazz.getElementName()+"} objects.");
+			pw.println(" * @return a new "+builderClassName);
+			pw.println("");
+			pw.println(" */");
+			pw.println("public static " + builderClassName + " " + methodName + "(){");
+			pw.println("return new " + builderClassName + "();\n}");
+		}
+        if ( this.createCopyConstructor && !clazz.getMethod(methodName, new String[] { "Q" + clazzName + ";" }).exists() ) {
     		pw.println("/**");
     		pw.println(" * Creates a new {@link "+builderClassName+"} of {@link "+clazz.getElementName()+"} objects.");
     		pw.println(" * The new builder is populated with the properties of the passed object.");
@@ -329,6 +1184,14 @@ public class BuilderGenerator implements Generator {
 		boolean createCopyConstructor;
 		boolean createBuildFactoryMethodOnBean;
 		boolean formatSource;
+		boolean useCopyOnWriteCollections;
+		boolean createCompanionBuilderFile;
+		boolean createBenchmark;
+		String benchmarkSourceFolder = "src/test/java";
+		String benchmarkCollectionSizes = "1,10,100";
+		boolean internInstances;
+		int internCacheSize = 1024;
+		Set<String> requiredFields = new HashSet<String>();
 
 		public Builder useWithPrefix(boolean useWithPrefixParam) {
 			this.useWithPrefix = useWithPrefixParam;
@@ -362,6 +1225,53 @@ public class BuilderGenerator implements Generator {
 			return this;
 		}
 
+		public Builder useCopyOnWriteCollections(boolean useCopyOnWriteCollectionsParam) {
+			this.useCopyOnWriteCollections = useCopyOnWriteCollectionsParam;
+			return this;
+		}
+
+		public Builder createCompanionBuilderFile(boolean createCompanionBuilderFileParam) {
+			this.createCompanionBuilderFile = createCompanionBuilderFileParam;
+			return this;
+		}
+
+		public Builder createBenchmark(boolean createBenchmarkParam) {
+			this.createBenchmark = createBenchmarkParam;
+			return this;
+		}
+
+		public Builder benchmarkSourceFolder(String benchmarkSourceFolderParam) {
+			this.benchmarkSourceFolder = benchmarkSourceFolderParam;
+			return this;
+		}
+
+		public Builder benchmarkCollectionSizes(String benchmarkCollectionSizesParam) {
+			if (!isValidCollectionSizes(benchmarkCollectionSizesParam)) {
+				throw new IllegalArgumentException("The benchmark collection sizes must be comma separated whole numbers of at least 0, was \""
+						+ benchmarkCollectionSizesParam + "\"");
+			}
+			this.benchmarkCollectionSizes = benchmarkCollectionSizesParam;
+			return this;
+		}
+
+		public Builder internInstances(boolean internInstancesParam) {
+			this.internInstances = internInstancesParam;
+			return this;
+		}
+
+		public Builder internCacheSize(int internCacheSizeParam) {
+			if (internCacheSizeParam < 1) {
+				throw new IllegalArgumentException("The intern cache size must be at least 1, was " + internCacheSizeParam);
+			}
+			this.internCacheSize = internCacheSizeParam;
+			return this;
+		}
+
+		public Builder requiredFields(Collection<String> requiredFieldNames) {
+			this.requiredFields = new HashSet<String>(requiredFieldNames);
+			return this;
+		}
+
 		public BuilderGenerator build() {
 			return new BuilderGenerator(this);
 		}
@@ -374,5 +1284,14 @@ public class BuilderGenerator implements Generator {
 		this.formatSource = builder.formatSource;
 		this.generateAddedRemovedMethodsForCollections = builder.generateAddedRemovedMethodsForCollections;
 		this.generateVarargMethodsForCollections = builder.generateVarargMethodsForCollections;
+		// interned instances share the builder's collections, so later writes to them must copy
+		this.useCopyOnWriteCollections = builder.useCopyOnWriteCollections || builder.internInstances;
+		this.createCompanionBuilderFile = builder.createCompanionBuilderFile;
+		this.createBenchmark = builder.createBenchmark;
+		this.benchmarkSourceFolder = builder.benchmarkSourceFolder;
+		this.benchmarkCollectionSizes = builder.benchmarkCollectionSizes;
+		this.internInstances = builder.internInstances;
+		this.internCacheSize = builder.internCacheSize;
+		this.requiredFields = builder.requiredFields;
 	}
 }
@@ -0,0 +1,244 @@
+package no.bekk.boss.bpep.generator;
+
+import static no.bekk.boss.bpep.resolver.Resolver.getName;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import no.bekk.boss.bpep.Activator;
+import no.bekk.boss.bpep.resolver.Resolver;
+
+import org.eclipse.core.resources.ProjectScope;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.IField;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.ui.statushandlers.StatusManager;
+import org.osgi.service.prefs.BackingStoreException;
+import org.osgi.service.prefs.Preferences;
+
+/**
+ * The field selection and {@link BuilderGenerator.Builder} options last used
+ * for a type, stored in a preference node named after the type in the
+ * project's preferences, one preference per option. Fields
+ * declared in the type are remembered by exclusion, so fields added to the
+ * type since the settings were saved are included when regenerating.
+ * Inherited fields are remembered by inclusion, so they are only used when
+ * they have been selected explicitly, as they have to match a constructor of
+ * the type.
+ */
+public class GeneratorSettings {
+
+	public static final String USE_WITH_PREFIX = "useWithPrefix";
+	public static final String GENERATE_ADDED_REMOVED_METHODS_FOR_COLLECTIONS = "generateAddedRemovedMethodsForCollections";
+	public static final String GENERATE_VARARG_METHODS_FOR_COLLECTIONS = "generateVarargMethodsForCollections";
+	public static final String CREATE_COPY_CONSTRUCTOR = "createCopyConstructor";
+	public static final String USE_COPY_ON_WRITE_COLLECTIONS = "useCopyOnWriteCollections";
+	public static final String CREATE_BUILD_FACTORY_METHOD_ON_BEAN = "createBuildFactoryMethodOnBean";
+	public static final String CREATE_COMPANION_BUILDER_FILE = "createCompanionBuilderFile";
+	public static final String CREATE_BENCHMARK = "createBenchmark";
+	public static final String BENCHMARK_SOURCE_FOLDER = "benchmarkSourceFolder";
+	public static final String BENCHMARK_COLLECTION_SIZES = "benchmarkCollectionSizes";
+	public static final String INTERN_INSTANCES = "internInstances";
+	public static final String INTERN_CACHE_SIZE = "internCacheSize";
+	public static final String FORMAT_SOURCE = "formatSource";
+
+	private static final String EXCLUDED_FIELDS = "excludedFields";
+	private static final String INCLUDED_INHERITED_FIELDS = "includedInheritedFields";
+	private static final String REQUIRED_FIELDS = "requiredFields";
+
+	private final IType type;
+	private final Properties properties;
+	private final boolean stored;
+
+	private GeneratorSettings(IType type, Properties properties, boolean stored) {
+		this.type = type;
+		this.properties = properties;
+		this.stored = stored;
+	}
+
+	/**
+	 * Returns the settings saved for the compilation unit, or empty settings
+	 * if it has never been generated.
+	 */
+	public static GeneratorSettings load(ICompilationUnit compilationUnit) {
+		Properties properties = new Properties();
+		IType type = null;
+		try {
+			type = compilationUnit.getTypes()[0];
+			Preferences projectNode = getProjectNode(compilationUnit);
+			if (projectNode.nodeExists(type.getFullyQualifiedName())) {
+				Preferences typeNode = projectNode.node(type.getFullyQualifiedName());
+				for (String key : typeNode.keys()) {
+					properties.setProperty(key, typeNode.get(key, ""));
+				}
+				return new GeneratorSettings(type, properties, true);
+			}
+		} catch (JavaModelException e) {
+			e.printStackTrace();
+		} catch (BackingStoreException e) {
+			e.printStackTrace();
+		}
+		return new GeneratorSettings(type, properties, false);
+	}
+
+	/**
+	 * Writes the settings to the project's preferences, reporting a failure
+	 * through the status manager so it does not go unnoticed until the
+	 * settings are missing on regeneration.
+	 */
+	public void save(ICompilationUnit compilationUnit) {
+		if (type == null) {
+			return;
+		}
+		try {
+			Preferences typeNode = getProjectNode(compilationUnit).node(type.getFullyQualifiedName());
+			typeNode.clear();
+			for (String key : properties.stringPropertyNames()) {
+				typeNode.put(key, properties.getProperty(key));
+			}
+			typeNode.flush();
+		} catch (BackingStoreException e) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Could not save the builder settings of " + type.getFullyQualifiedName(), e);
+			StatusManager.getManager().handle(status, StatusManager.LOG | StatusManager.SHOW);
+		}
+	}
+
+	private static Preferences getProjectNode(ICompilationUnit compilationUnit) {
+		return new ProjectScope(compilationUnit.getJavaProject().getProject()).getNode(Activator.PLUGIN_ID);
+	}
+
+	public boolean isStored() {
+		return stored;
+	}
+
+	public boolean getBoolean(String key, boolean defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	public void setBoolean(String key, boolean value) {
+		properties.setProperty(key, String.valueOf(value));
+	}
+
+	public int getInt(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the integer stored for the key if it is at least the given
+	 * minimum, otherwise the default value.
+	 */
+	public int getInt(String key, int minimum, int defaultValue) {
+		int value = getInt(key, defaultValue);
+		return value < minimum ? defaultValue : value;
+	}
+
+	public String getString(String key, String defaultValue) {
+		return properties.getProperty(key, defaultValue);
+	}
+
+	public void setString(String key, String value) {
+		properties.setProperty(key, value);
+	}
+
+	public boolean isFieldSelected(IField field) {
+		if (type != null && Resolver.isInherited(field, type)) {
+			return getNames(INCLUDED_INHERITED_FIELDS).contains(getName(field));
+		}
+		return !getNames(EXCLUDED_FIELDS).contains(getName(field));
+	}
+
+	public void setSelectedFields(List<IField> allFields, List<IField> selectedFields) {
+		Set<String> excluded = new LinkedHashSet<String>();
+		Set<String> includedInherited = new LinkedHashSet<String>();
+		for (IField field : allFields) {
+			boolean selected = selectedFields.contains(field);
+			if (type != null && Resolver.isInherited(field, type)) {
+				if (selected) {
+					includedInherited.add(getName(field));
+				}
+			} else if (!selected) {
+				excluded.add(getName(field));
+			}
+		}
+		setNames(EXCLUDED_FIELDS, excluded);
+		setNames(INCLUDED_INHERITED_FIELDS, includedInherited);
+	}
+
+	public boolean isFieldRequired(IField field) {
+		return getNames(REQUIRED_FIELDS).contains(getName(field));
+	}
+
+	public void setRequiredFields(List<IField> requiredFields) {
+		Set<String> required = new LinkedHashSet<String>();
+		for (IField field : requiredFields) {
+			required.add(getName(field));
+		}
+		setNames(REQUIRED_FIELDS, required);
+	}
+
+	public List<IField> selectFields(List<IField> allFields) {
+		List<IField> selectedFields = new ArrayList<IField>();
+		for (IField field : allFields) {
+			if (isFieldSelected(field)) {
+				selectedFields.add(field);
+			}
+		}
+		return selectedFields;
+	}
+
+	/**
+	 * Creates a generator builder from these settings, using the same
+	 * defaults as the dialog for options that were never saved.
+	 */
+	public BuilderGenerator.Builder toBuilder() {
+		return new BuilderGenerator.Builder() //
+				.useWithPrefix(getBoolean(USE_WITH_PREFIX, true)) //
+				.generateAddedRemovedMethodsForCollections(getBoolean(GENERATE_ADDED_REMOVED_METHODS_FOR_COLLECTIONS, true)) //
+				.generateVarargMethodsForCollections(getBoolean(GENERATE_VARARG_METHODS_FOR_COLLECTIONS, true)) //
+				.createCopyConstructor(getBoolean(CREATE_COPY_CONSTRUCTOR, true)) //
+				.useCopyOnWriteCollections(getBoolean(USE_COPY_ON_WRITE_COLLECTIONS, false)) //
+				.createBuildFactoryMethodOnBean(getBoolean(CREATE_BUILD_FACTORY_METHOD_ON_BEAN, true)) //
+				.createCompanionBuilderFile(getBoolean(CREATE_COMPANION_BUILDER_FILE, false)) //
+				.createBenchmark(getBoolean(CREATE_BENCHMARK, false)) //
+				.benchmarkSourceFolder(getString(BENCHMARK_SOURCE_FOLDER, "src/test/java")) //
+				.benchmarkCollectionSizes(getCollectionSizes()) //
+				.internInstances(getBoolean(INTERN_INSTANCES, false)) //
+				.internCacheSize(getInt(INTERN_CACHE_SIZE, 1, 1024)) //
+				.requiredFields(getNames(REQUIRED_FIELDS)) //
+				.formatSource(getBoolean(FORMAT_SOURCE, true));
+	}
+
+	private String getCollectionSizes() {
+		String value = getString(BENCHMARK_COLLECTION_SIZES, "1,10,100");
+		return BuilderGenerator.isValidCollectionSizes(value) ? value : "1,10,100";
+	}
+
+	private Set<String> getNames(String key) {
+		Set<String> names = new LinkedHashSet<String>();
+		for (String name : properties.getProperty(key, "").split(",")) {
+			if (name.length() > 0) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	private void setNames(String key, Set<String> names) {
+		StringBuilder value = new StringBuilder();
+		for (String name : names) {
+			value.append(value.length() == 0 ? "" : ",").append(name);
+		}
+		properties.setProperty(key, value.toString());
+	}
+}
@@ -0,0 +1,80 @@
+package no.bekk.boss.bpep.handlers;
+
+import no.bekk.boss.bpep.view.CreateDialog;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.ui.IWorkingCopyManager;
+import org.eclipse.jdt.ui.JavaUI;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.ui.IEditorInput;
+import org.eclipse.ui.IEditorPart;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Handler for the <code>bpep.invoke</code> command. Enablement is declared in
+ * plugin.xml, so this class (and the bundle) is only loaded once the command
+ * is actually executed.
+ */
+public class GenerateBuilderHandler extends AbstractHandler {
+
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		IEditorPart editor = findEditor(event);
+		if (editor == null) {
+			return null;
+		}
+		IWorkingCopyManager manager = JavaUI.getWorkingCopyManager();
+		IEditorInput editorInput = editor.getEditorInput();
+		try {
+			manager.connect(editorInput);
+			ICompilationUnit workingCopy = manager.getWorkingCopy(editorInput);
+
+			generate(workingCopy, event);
+
+			synchronized (workingCopy) {
+				workingCopy.reconcile(ICompilationUnit.NO_AST, false, null, null);
+			}
+
+		} catch (JavaModelException e) {
+			e.printStackTrace();
+		} catch (CoreException e) {
+			e.printStackTrace();
+		} finally {
+			manager.disconnect(editorInput);
+		}
+		return null;
+	}
+
+	/**
+	 * Lets the user choose fields and options for the builder of the given
+	 * working copy.
+	 */
+	protected void generate(ICompilationUnit workingCopy, ExecutionEvent event) throws JavaModelException {
+		CreateDialog dialog = new CreateDialog(HandlerUtil.getActiveShell(event));
+		dialog.show(workingCopy);
+	}
+
+	/**
+	 * Returns the active Java editor, or opens one for a compilation unit
+	 * selected in a view such as the Package Explorer.
+	 */
+	private IEditorPart findEditor(ExecutionEvent event) throws ExecutionException {
+		ISelection selection = HandlerUtil.getCurrentSelection(event);
+		if (selection instanceof IStructuredSelection) {
+			Object element = ((IStructuredSelection) selection).getFirstElement();
+			if (element instanceof ICompilationUnit) {
+				try {
+					return JavaUI.openInEditor((ICompilationUnit) element);
+				} catch (CoreException e) {
+					throw new ExecutionException("Could not open " + ((ICompilationUnit) element).getElementName(), e);
+				}
+			}
+		}
+		return HandlerUtil.getActiveEditor(event);
+	}
+}
@@ -0,0 +1,27 @@
+package no.bekk.boss.bpep.handlers;
+
+import no.bekk.boss.bpep.generator.GeneratorSettings;
+import no.bekk.boss.bpep.resolver.Resolver;
+
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.jdt.core.ICompilationUnit;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Handler for the <code>bpep.regenerate</code> command. Regenerates the
+ * builder from the settings saved the last time the dialog was used for the
+ * type, without showing the dialog. Fields added since then are included. If
+ * no settings have been saved yet, the dialog is shown instead.
+ */
+public class RegenerateBuilderHandler extends GenerateBuilderHandler {
+
+	@Override
+	protected void generate(ICompilationUnit workingCopy, ExecutionEvent event) throws JavaModelException {
+		GeneratorSettings settings = GeneratorSettings.load(workingCopy);
+		if (!settings.isStored()) {
+			super.generate(workingCopy, event);
+			return;
+		}
+		settings.toBuilder().build().generate(workingCopy, settings.selectFields(Resolver.findAllFields(workingCopy)));
+	}
+}
@@ -1,16 +1,25 @@
 package no.bekk.boss.bpep.resolver;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.eclipse.jdt.core.Flags;
 import org.eclipse.jdt.core.ICompilationUnit;
 import org.eclipse.jdt.core.IField;
 import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.Signature;
 
 public class Resolver {
+
+	private static final Pattern TYPE_NAME = Pattern.compile("[A-Za-z_$][\\w$]*(\\.[A-Za-z_$][\\w$]*)*");
+
 	public static String getName(final IField field) {
 		return field.getElementName();
 	}
@@ -26,22 +35,94 @@ public class Resolver {
 		return null;
 	}
 
+	/**
+	 * Returns the instance fields of the first type in the compilation unit,
+	 * preceded by the fields it inherits from source superclasses, topmost
+	 * superclass first. Inherited fields are included when they are visible to
+	 * the type and not hidden by a field of the same name further down the
+	 * hierarchy. Fields of binary superclasses, such as those of the JDK, are
+	 * never included.
+	 */
 	public static List<IField> findAllFields(final ICompilationUnit compilationUnit) {
 		List<IField> fields = new ArrayList<IField>();
 		try {
 			IType clazz = compilationUnit.getTypes()[0];
 
-			for (IField field : clazz.getFields()) {
-				int flags = field.getFlags();
-				boolean notStatic = !Flags.isStatic(flags);
-				if (notStatic) {
-					fields.add(field);
+			Set<String> names = new HashSet<String>();
+			List<IField> declaredFields = findDeclaredFields(clazz, clazz, names);
+			ITypeHierarchy hierarchy = SupertypeHierarchyCache.getSupertypeHierarchy(clazz);
+			for (IType superclass : hierarchy.getAllSuperclasses(clazz)) {
+				if (superclass.isBinary()) {
+					continue;
 				}
+				fields.addAll(0, findDeclaredFields(superclass, clazz, names));
 			}
+			fields.addAll(declaredFields);
 
 		} catch (JavaModelException e) {
 			e.printStackTrace();
 		}
 		return fields;
 	}
+
+	/**
+	 * Returns whether the field is inherited by the type rather than declared
+	 * in it.
+	 */
+	public static boolean isInherited(final IField field, final IType clazz) {
+		return !field.getDeclaringType().equals(clazz);
+	}
+
+	/**
+	 * Returns the fully qualified names of the types referenced by the field's
+	 * type, resolved in the type that declares the field. Types in
+	 * <code>java.lang</code> are left out. For a qualified name, only its
+	 * first segment is resolved, so <code>Map.Entry</code> imports
+	 * <code>Map</code> and a fully qualified name imports nothing.
+	 */
+	public static Set<String> getTypeImports(final IField field) {
+		Set<String> imports = new LinkedHashSet<String>();
+		String type = getType(field);
+		if (type == null) {
+			return imports;
+		}
+		Matcher matcher = TYPE_NAME.matcher(type);
+		while (matcher.find()) {
+			String name = matcher.group();
+			if (name.indexOf('.') >= 0) {
+				name = name.substring(0, name.indexOf('.'));
+			}
+			try {
+				String[][] resolved = field.getDeclaringType().resolveType(name);
+				if (resolved != null && resolved.length == 1 && !"java.lang".equals(resolved[0][0])) {
+					imports.add(resolved[0][0].length() == 0 ? resolved[0][1] : resolved[0][0] + "." + resolved[0][1]);
+				}
+			} catch (JavaModelException e) {
+				e.printStackTrace();
+			}
+		}
+		return imports;
+	}
+
+	private static List<IField> findDeclaredFields(IType declaringType, IType clazz, Set<String> names) throws JavaModelException {
+		List<IField> fields = new ArrayList<IField>();
+		for (IField field : declaringType.getFields()) {
+			int flags = field.getFlags();
+			boolean notStatic = !Flags.isStatic(flags);
+			if (notStatic && isVisible(flags, declaringType, clazz) && names.add(getName(field))) {
+				fields.add(field);
+			}
+		}
+		return fields;
+	}
+
+	private static boolean isVisible(int flags, IType declaringType, IType clazz) {
+		if (declaringType.equals(clazz) || Flags.isPublic(flags) || Flags.isProtected(flags)) {
+			return true;
+		}
+		if (Flags.isPrivate(flags)) {
+			return false;
+		}
+		return declaringType.getPackageFragment().getElementName().equals(clazz.getPackageFragment().getElementName());
+	}
 }
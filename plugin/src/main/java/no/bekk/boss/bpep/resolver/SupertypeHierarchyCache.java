@@ -0,0 +1,69 @@
+package no.bekk.boss.bpep.resolver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeHierarchy;
+import org.eclipse.jdt.core.ITypeHierarchyChangedListener;
+import org.eclipse.jdt.core.JavaModelException;
+
+/**
+ * Keeps the supertype hierarchies of recently generated types between
+ * invocations, so regenerating a builder in a deep hierarchy does not compute
+ * the hierarchy again. A hierarchy is dropped as soon as JDT reports a change
+ * to it, and the least recently used one is dropped once the cache is full.
+ */
+public class SupertypeHierarchyCache {
+
+	private static final int MAX_HIERARCHIES = 64;
+
+	private static final ITypeHierarchyChangedListener INVALIDATOR = new ITypeHierarchyChangedListener() {
+		public void typeHierarchyChanged(ITypeHierarchy typeHierarchy) {
+			remove(typeHierarchy);
+		}
+	};
+
+	private static final Map<IType, ITypeHierarchy> HIERARCHIES = new LinkedHashMap<IType, ITypeHierarchy>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<IType, ITypeHierarchy> eldest) {
+			if (size() > MAX_HIERARCHIES) {
+				eldest.getValue().removeTypeHierarchyChangedListener(INVALIDATOR);
+				return true;
+			}
+			return false;
+		}
+	};
+
+	private SupertypeHierarchyCache() {
+	}
+
+	public static ITypeHierarchy getSupertypeHierarchy(IType type) throws JavaModelException {
+		synchronized (HIERARCHIES) {
+			ITypeHierarchy cached = HIERARCHIES.get(type);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		ITypeHierarchy hierarchy = type.newSupertypeHierarchy(null);
+		hierarchy.addTypeHierarchyChangedListener(INVALIDATOR);
+		synchronized (HIERARCHIES) {
+			ITypeHierarchy previous = HIERARCHIES.put(type, hierarchy);
+			if (previous != null && previous != hierarchy) {
+				previous.removeTypeHierarchyChangedListener(INVALIDATOR);
+			}
+		}
+		return hierarchy;
+	}
+
+	private static void remove(ITypeHierarchy typeHierarchy) {
+		typeHierarchy.removeTypeHierarchyChangedListener(INVALIDATOR);
+		synchronized (HIERARCHIES) {
+			if (HIERARCHIES.get(typeHierarchy.getType()) == typeHierarchy) {
+				HIERARCHIES.remove(typeHierarchy.getType());
+			}
+		}
+	}
+}
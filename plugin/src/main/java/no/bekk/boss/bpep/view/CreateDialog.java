@@ -5,6 +5,7 @@ import java.util.List;
 
 import no.bekk.boss.bpep.generator.BuilderGenerator;
 import no.bekk.boss.bpep.generator.Generator;
+import no.bekk.boss.bpep.generator.GeneratorSettings;
 import no.bekk.boss.bpep.resolver.Resolver;
 
 import org.eclipse.jdt.core.ICompilationUnit;
@@ -17,13 +18,19 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.layout.RowLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Event;
 import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.MessageBox;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
 
 public class CreateDialog extends AbstractModalDialog {
 
+    private static final String REQUIRED_BUTTON = "required";
+
     public CreateDialog(Shell parent) {
         super(parent);
     }
@@ -37,12 +44,14 @@ public class CreateDialog extends AbstractModalDialog {
 
         Group fieldGroup = new Group(shell, SWT.SHADOW_ETCHED_IN);
         fieldGroup.setText("Select fields to include:");
-        fieldGroup.setLayout(new RowLayout(SWT.VERTICAL));
+        fieldGroup.setLayout(new GridLayout(2, false));
         GridData fieldGroupLayoutData = new GridData();
         fieldGroupLayoutData.verticalSpan = 2;
 		fieldGroup.setLayoutData(fieldGroupLayoutData);
 
-        final List<Button> fieldButtons = createFieldSelectionCheckboxes(compilationUnit, fieldGroup);
+        final GeneratorSettings settings = GeneratorSettings.load(compilationUnit);
+        final List<IField> allFields = Resolver.findAllFields(compilationUnit);
+        final List<Button> fieldButtons = createFieldSelectionCheckboxes(allFields, settings, fieldGroup);
         createSelectAllButton(shell, fieldButtons);
         createSelectNoneButton(shell, fieldButtons);
 
@@ -55,27 +64,58 @@ public class CreateDialog extends AbstractModalDialog {
 		optionGroup.setLayoutData(optionGridData);
 
         final Button useWithPrefixButton = new Button(optionGroup, SWT.CHECK);
-        useWithPrefixButton.setSelection(true);
+        useWithPrefixButton.setSelection(settings.getBoolean(GeneratorSettings.USE_WITH_PREFIX, true));
         useWithPrefixButton.setText("Use 'with' prefix for builder method names");
 
         final Button generateAddedRemovedMethodsForCollections = new Button(optionGroup, SWT.CHECK);
-        generateAddedRemovedMethodsForCollections.setSelection(true);
+        generateAddedRemovedMethodsForCollections.setSelection(settings.getBoolean(GeneratorSettings.GENERATE_ADDED_REMOVED_METHODS_FOR_COLLECTIONS, true));
         generateAddedRemovedMethodsForCollections.setText("Create 'Added' and 'Removed' methods for Collection fields");
 
         final Button generateVarargMethodsForCollections = new Button(optionGroup, SWT.CHECK);
-        generateVarargMethodsForCollections.setSelection(true);
+        generateVarargMethodsForCollections.setSelection(settings.getBoolean(GeneratorSettings.GENERATE_VARARG_METHODS_FOR_COLLECTIONS, true));
         generateVarargMethodsForCollections.setText("Create vararg methods for Collection fields");
 
         final Button createCopyConstructorButton = new Button(optionGroup, SWT.CHECK);
-        createCopyConstructorButton.setSelection(true);
+        createCopyConstructorButton.setSelection(settings.getBoolean(GeneratorSettings.CREATE_COPY_CONSTRUCTOR, true));
         createCopyConstructorButton.setText("Create copy constructor in builder");
 
+        final Button useCopyOnWriteCollectionsButton = new Button(optionGroup, SWT.CHECK);
+        useCopyOnWriteCollectionsButton.setSelection(settings.getBoolean(GeneratorSettings.USE_COPY_ON_WRITE_COLLECTIONS, false));
+        useCopyOnWriteCollectionsButton.setText("Share Collection fields copy-on-write between derived builders");
+
         final Button createBuildFactoryMethodOnBeanButton = new Button(optionGroup, SWT.CHECK);
-        createBuildFactoryMethodOnBeanButton.setSelection(true);
+        createBuildFactoryMethodOnBeanButton.setSelection(settings.getBoolean(GeneratorSettings.CREATE_BUILD_FACTORY_METHOD_ON_BEAN, true));
         createBuildFactoryMethodOnBeanButton.setText("Create build factory method on bean");
 
+        final Button createCompanionBuilderFileButton = new Button(optionGroup, SWT.CHECK);
+        createCompanionBuilderFileButton.setSelection(settings.getBoolean(GeneratorSettings.CREATE_COMPANION_BUILDER_FILE, false));
+        createCompanionBuilderFileButton.setText("Write builder to a separate <Class>Builder.java file");
+
+        final Button createBenchmarkButton = new Button(optionGroup, SWT.CHECK);
+        createBenchmarkButton.setSelection(settings.getBoolean(GeneratorSettings.CREATE_BENCHMARK, false));
+        createBenchmarkButton.setText("Create JMH benchmark for the builder");
+
+        Composite benchmarkComposite = new Composite(optionGroup, SWT.NONE);
+        benchmarkComposite.setLayout(new GridLayout(2, false));
+        new Label(benchmarkComposite, SWT.NONE).setText("Benchmark source folder:");
+        final Text benchmarkSourceFolderText = new Text(benchmarkComposite, SWT.BORDER);
+        benchmarkSourceFolderText.setText(settings.getString(GeneratorSettings.BENCHMARK_SOURCE_FOLDER, "src/test/java"));
+        new Label(benchmarkComposite, SWT.NONE).setText("Collection sizes (comma separated):");
+        final Text benchmarkCollectionSizesText = new Text(benchmarkComposite, SWT.BORDER);
+        benchmarkCollectionSizesText.setText(settings.getString(GeneratorSettings.BENCHMARK_COLLECTION_SIZES, "1,10,100"));
+
+        final Button internInstancesButton = new Button(optionGroup, SWT.CHECK);
+        internInstancesButton.setSelection(settings.getBoolean(GeneratorSettings.INTERN_INSTANCES, false));
+        internInstancesButton.setText("Return interned instances from build()");
+
+        Composite internComposite = new Composite(optionGroup, SWT.NONE);
+        internComposite.setLayout(new GridLayout(2, false));
+        new Label(internComposite, SWT.NONE).setText("Intern cache size:");
+        final Text internCacheSizeText = new Text(internComposite, SWT.BORDER);
+        internCacheSizeText.setText(String.valueOf(settings.getInt(GeneratorSettings.INTERN_CACHE_SIZE, 1, 1024)));
+
         final Button formatSourceButton = new Button(optionGroup, SWT.CHECK);
-        formatSourceButton.setSelection(true);
+        formatSourceButton.setSelection(settings.getBoolean(GeneratorSettings.FORMAT_SOURCE, true));
         formatSourceButton.setText("Format source (entire file)");
         
         final Button executeButton = new Button(shell, SWT.PUSH);
@@ -88,22 +128,44 @@ public class CreateDialog extends AbstractModalDialog {
         Listener clickListener = new Listener() {
         	public void handleEvent(Event event) {
         		if (event.widget == executeButton) {
+        			if (internInstancesButton.getSelection() && parsePositiveInt(internCacheSizeText.getText()) < 1) {
+        				showError(shell, "The intern cache size must be a whole number of at least 1.");
+        				return;
+        			}
+        			if (createBenchmarkButton.getSelection() && !BuilderGenerator.isValidCollectionSizes(benchmarkCollectionSizesText.getText())) {
+        				showError(shell, "The collection sizes must be comma separated whole numbers of at least 0.");
+        				return;
+        			}
 
         			List<IField> selectedFields = new ArrayList<IField>();
+        			List<IField> requiredFields = new ArrayList<IField>();
         			for (Button button : fieldButtons) {
 						if (button.getSelection()) {
 							selectedFields.add((IField)button.getData());
 						}
+						if (((Button)button.getData(REQUIRED_BUTTON)).getSelection()) {
+							requiredFields.add((IField)button.getData());
+						}
 					}
 
-					Generator generator = new BuilderGenerator.Builder() //
-							.useWithPrefix(useWithPrefixButton.getSelection()) //
-							.generateAddedRemovedMethodsForCollections(generateAddedRemovedMethodsForCollections.getSelection()) //
-							.generateVarargMethodsForCollections(generateVarargMethodsForCollections.getSelection()) //
-							.createCopyConstructor(createCopyConstructorButton.getSelection()) //
-							.createBuildFactoryMethodOnBean(createBuildFactoryMethodOnBeanButton.getSelection()) //
-							.formatSource(formatSourceButton.getSelection()) //
-							.build();
+					settings.setBoolean(GeneratorSettings.USE_WITH_PREFIX, useWithPrefixButton.getSelection());
+					settings.setBoolean(GeneratorSettings.GENERATE_ADDED_REMOVED_METHODS_FOR_COLLECTIONS, generateAddedRemovedMethodsForCollections.getSelection());
+					settings.setBoolean(GeneratorSettings.GENERATE_VARARG_METHODS_FOR_COLLECTIONS, generateVarargMethodsForCollections.getSelection());
+					settings.setBoolean(GeneratorSettings.CREATE_COPY_CONSTRUCTOR, createCopyConstructorButton.getSelection());
+					settings.setBoolean(GeneratorSettings.USE_COPY_ON_WRITE_COLLECTIONS, useCopyOnWriteCollectionsButton.getSelection());
+					settings.setBoolean(GeneratorSettings.CREATE_BUILD_FACTORY_METHOD_ON_BEAN, createBuildFactoryMethodOnBeanButton.getSelection());
+					settings.setBoolean(GeneratorSettings.CREATE_COMPANION_BUILDER_FILE, createCompanionBuilderFileButton.getSelection());
+					settings.setBoolean(GeneratorSettings.CREATE_BENCHMARK, createBenchmarkButton.getSelection());
+					settings.setString(GeneratorSettings.BENCHMARK_SOURCE_FOLDER, benchmarkSourceFolderText.getText().trim());
+					settings.setString(GeneratorSettings.BENCHMARK_COLLECTION_SIZES, benchmarkCollectionSizesText.getText().trim());
+					settings.setBoolean(GeneratorSettings.INTERN_INSTANCES, internInstancesButton.getSelection());
+					settings.setString(GeneratorSettings.INTERN_CACHE_SIZE, internCacheSizeText.getText().trim());
+					settings.setBoolean(GeneratorSettings.FORMAT_SOURCE, formatSourceButton.getSelection());
+					settings.setSelectedFields(allFields, selectedFields);
+					settings.setRequiredFields(requiredFields);
+					settings.save(compilationUnit);
+
+					Generator generator = settings.toBuilder().build();
 					generator.generate(compilationUnit, selectedFields);
         			shell.dispose();
         		} else {
@@ -120,19 +182,37 @@ public class CreateDialog extends AbstractModalDialog {
         display(shell);
     }
 
-	private List<Button> createFieldSelectionCheckboxes(final ICompilationUnit compilationUnit, Group fieldGroup) {
-		List<IField> fields = Resolver.findAllFields(compilationUnit);
+	private List<Button> createFieldSelectionCheckboxes(List<IField> fields, GeneratorSettings settings, Group fieldGroup) {
 		final List<Button> fieldButtons = new ArrayList<Button>();
 		for (IField field : fields) {
 			Button button = new Button(fieldGroup, SWT.CHECK);
 			button.setText(Resolver.getName(field) + "(" + Resolver.getType(field) + ")");
 			button.setData(field);
-			button.setSelection(true);
+			button.setSelection(settings.isFieldSelected(field));
+			Button requiredButton = new Button(fieldGroup, SWT.CHECK);
+			requiredButton.setText("required");
+			requiredButton.setSelection(settings.isFieldRequired(field));
+			button.setData(REQUIRED_BUTTON, requiredButton);
 			fieldButtons.add(button);
 		}
 		return fieldButtons;
 	}
 
+	private static int parsePositiveInt(String text) {
+		try {
+			return Integer.parseInt(text.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static void showError(Shell shell, String message) {
+		MessageBox messageBox = new MessageBox(shell, SWT.ICON_ERROR | SWT.OK);
+		messageBox.setText("Generate Fluent Builder");
+		messageBox.setMessage(message);
+		messageBox.open();
+	}
+
 	private void createSelectAllButton(final Shell shell, final List<Button> fieldButtons) {
 		Button btnSelectAll = new Button(shell, SWT.PUSH);
 		btnSelectAll.setText("Select All");